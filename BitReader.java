@@ -47,4 +47,12 @@ public class BitReader {
 
         return bit;
     }
+
+    /*
+     * skipRemainingBits - discards the bits left in the buffer, so
+     * the next call to getBit() starts at the next byte of the file.
+     */
+    public void skipRemainingBits() {
+        numBits = 0;
+    }
 }
@@ -67,6 +67,11 @@ public class BitWriter {
      * else some bits may not get written out!
      */      
     public void flushBits() throws IOException {
+        // Nothing to write if the buffer is empty.
+        if (numBits == 0) {
+            return;
+        }
+
         //
         // If the buffer has fewer than 8 bits, need to shift the bits
         // left to align them with the left end of the byte before 
@@ -9,26 +9,50 @@
  */ 
 
 import java.util.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 
 
 import java.io.*;
 
 public class Huff {
+	//Modes are written in place of the header length. A Huffman
+	//header length is never negative, so the other modes are.
+	public static final int MODE_HUFFMAN = 0; //header followed by Huffman coded bits
+	public static final int MODE_STORED = -1; //character count followed by the characters as is
+	public static final int MODE_RUN = -2;    //a single character followed by its count
+
+	//Files are read one byte per character so that any byte
+	//value, not only ASCII text, survives compression
+	public static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+	//Frequencies, and the character counts written by the stored and
+	//run modes, are 4-byte ints, so larger files can't be compressed
+	public static final long MAX_INPUT_CHARS = Integer.MAX_VALUE;
+
 	/**
-	 * Build a list of character-frequency pairs from a text file 
+	 * Build a list of character-frequency pairs from a text file.
+	 * Throws IllegalArgumentException if the file has more than
+	 * MAX_INPUT_CHARS characters.
 	 */
 	public static int[] buildFreqList(FileReader in)
 	{
-		int[] freqList = new int[255]; //Assume 8-bit character encoding
-		int ch;
+		int[] freqList = new int[256]; //Assume 8-bit character encoding
+		char[] chars = new char[8192];
+		long total = 0;
+		int n;
 		try{
-			do {
-				ch = in.read(); //reads one char at a time
-				if (ch!=-1) {
-					freqList[ch]++;
+			while ((n = in.read(chars)) != -1) { //reads a block of chars at a time
+				total += n;
+				if (total > MAX_INPUT_CHARS) {
+					throw new IllegalArgumentException("File has more than " + MAX_INPUT_CHARS
+							+ " characters, too large to compress");
 				}
-			}while(ch>=0); //-1 indicates end of input stream
+				for (int i = 0; i < n; i++){
+					freqList[chars[i]]++;
+				}
+			}
 		}
 		catch(IOException e){
 			System.out.println("Error reading from file. "+e.getMessage());
@@ -37,32 +61,72 @@ public class Huff {
 	}
 
 	/**
-	 * Write encoded text to file using a BitWriter
-	 * 
+	 * Write encoded text to file using a BitWriter and the
+	 * code table of a HuffArrayTree. Reads the file in blocks
+	 * and allocates nothing per character.
 	 */
-	public static void writeEncoded(FileReader in, BitWriter writer, String[] huffTable)
+	public static void writeEncoded(FileReader in, BitWriter writer, HuffArrayTree tree) throws IOException
 	{
-		int ch = 0;
-		do {
-			try{
-				ch = in.read(); //reads one char at a time
-			} catch(IOException e){
-				System.out.println("Error reading from input file");
-			}
-			if (ch!=-1) {
-				Code huffCode = new Code();
-				String huffSeq = huffTable[ch];
-				for (int i = 0; i < huffSeq.length();i++){
-					huffCode.addBit(Integer.parseInt(huffSeq.substring(i, i+1)));
-				}
-				try{
-					writer.writeCode(huffCode);
-				} catch(IOException e){
-					System.out.println("Error writing to output file");
-				}
+		char[] chars = new char[8192];
+		int n;
+		while ((n = in.read(chars)) != -1) {
+			for (int i = 0; i < n; i++){
+				tree.writeCode(writer, chars[i]);
 			}
+		}
+	}
 
-		}while(ch>=0); //-1 indicates end of input stream
+	/**
+	 * Returns the number of bytes main writes before the data
+	 * of a file stored in the given mode, for a file with
+	 * listLen distinct characters
+	 */
+	public static long headerBytes(int mode, int listLen)
+	{
+		if (mode == MODE_RUN) {
+			return 12;             //mode, character and count
+		}
+		if (mode == MODE_STORED) {
+			return 8;              //mode and count
+		}
+		return 4 + 8L*listLen;     //header length and character/frequency pairs
+	}
+
+	/**
+	 * Choose the mode with the smallest estimated size in bytes,
+	 * given the total size of each mode or -1 for a mode that
+	 * can't be used. Ties go to the mode that is cheaper to write:
+	 * a run, then stored, then Huffman coded.
+	 */
+	public static int chooseMode(long huffmanBytes, long storedBytes, long runBytes)
+	{
+		int mode = MODE_STORED;
+		long best = storedBytes;
+		if (huffmanBytes >= 0 && huffmanBytes < best) {
+			mode = MODE_HUFFMAN;
+			best = huffmanBytes;
+		}
+		if (runBytes >= 0 && runBytes <= best) {
+			mode = MODE_RUN;
+		}
+		return mode;
+	}
+
+	/**
+	 * Copy text to an output stream one byte per character,
+	 * without encoding it
+	 */
+	public static void writeStored(FileReader in, OutputStream out) throws IOException
+	{
+		char[] chars = new char[8192];
+		byte[] bytes = new byte[chars.length];
+		int n;
+		while ((n = in.read(chars)) != -1) {
+			for (int i = 0; i < n; i++){
+				bytes[i] = (byte)chars[i];
+			}
+			out.write(bytes, 0, n);
+		}
 	}
 
 	/** 
@@ -91,7 +155,7 @@ public class Huff {
 
 		// Open the input file.
 		try {
-			in = new FileReader(infilename);
+			in = new FileReader(infilename, CHARSET);
 		} catch (FileNotFoundException e) {
 			System.out.println("Can't open file " + infilename);
 			System.exit(1);
@@ -116,36 +180,73 @@ public class Huff {
 		 */
 
 		//Build character frequency list from data file
-		int[] freqList = buildFreqList(in);
+		int[] freqList = null;
+		try {
+			freqList = buildFreqList(in);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
 
 		//Count number of non-zero entries for header length
 		int listLen = 0;
+		long symbolCount = 0; //at most MAX_INPUT_CHARS, so it fits the 4-byte count
 		for (int i: freqList){
 			if (i>0) listLen++;
+			symbolCount += i;
 		}
 
-		HuffEncodeTree htree = new HuffEncodeTree();
-		//Build list of char:frequency nodes in sorted order
-		//Also writes header to output file
-		//First write the number of entries in the header
-		out.writeInt(listLen);
-		for (int i = 0; i < freqList.length; i++){
-			if (freqList[i]>0) {//list only includes characters seen one or more times
-				htree.addItem(freqList[i],(char)i);//Add node to list
-				out.writeInt(i);			//Write character to header (4 bytes)
-				out.writeInt(freqList[i]);  //Write character frequency to header (4 bytes)
-			}
+		//Estimate the compressed size from the frequencies and pick
+		//the cheapest way to store the file before encoding anything
+		HuffArrayTree htree = null;
+		long huffmanBytes = -1;
+		long runBytes = -1;
+		if (listLen > 1) {
+			htree = new HuffArrayTree();
+			htree.build(freqList);
+			huffmanBytes = headerBytes(MODE_HUFFMAN, listLen) + (htree.encodedBits(freqList) + 7)/8;
+		}
+		if (listLen == 1) {
+			runBytes = headerBytes(MODE_RUN, listLen);
 		}
-		//Construct the Huffman tree 
-		htree.constructHuffTree();
+		long storedBytes = headerBytes(MODE_STORED, listLen) + symbolCount;
+		int mode = chooseMode(huffmanBytes, storedBytes, runBytes);
 
-		String[] result = htree.buildCodeTable();//Indices are ascii codes, values Huffman codes
+		if (mode == MODE_RUN) {
+			//A single character repeated: no need to read the file again
+			out.writeInt(MODE_RUN);
+			for (int i = 0; i < freqList.length; i++){
+				if (freqList[i]>0) {
+					out.writeInt(i);
+				}
+			}
+			out.writeInt((int)symbolCount);
+		}
+		else if (mode == MODE_STORED) {
+			//Huffman coding would not make the file smaller, copy it as is
+			out.writeInt(MODE_STORED);
+			out.writeInt((int)symbolCount);
+			in = new FileReader(infilename, CHARSET);
+			writeStored(in, out);
+		}
+		else {
+			//Write header to output file
+			//First write the number of entries in the header
+			out.writeInt(listLen);
+			for (int i = 0; i < freqList.length; i++){
+				if (freqList[i]>0) {//list only includes characters seen one or more times
+					out.writeInt(i);			//Write character to header (4 bytes)
+					out.writeInt(freqList[i]);  //Write character frequency to header (4 bytes)
+				}
+			}
 
-		//Reopen file handle so it is positioned at beginning
-		in = new FileReader(infilename); 
+			//Reopen file handle so it is positioned at beginning
+			in = new FileReader(infilename, CHARSET); 
 
-		//Write compressed text to output file 
-		writeEncoded(in, writer, result);
+			//Write compressed text to output file 
+			writeEncoded(in, writer, htree);
+			writer.flushBits(); //write out the bits left in the buffer
+		}
 
 
 		/* Leave these lines at the end of the method. */
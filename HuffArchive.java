@@ -0,0 +1,473 @@
+/*
+ * HuffArchive.java
+ *
+ * A program that appends a file to a Huffman compressed archive
+ * without recompressing the data already stored in it.
+ *
+ * An archive starts with a fixed size header holding MAGIC and the
+ * offset of the last record, followed by independently coded
+ * segments, each followed by a fixed size record:
+ *
+ *   MAGIC (4 bytes) | record offset (8 bytes) | segment 0 | record | segment 1 | record | ...
+ *
+ * A record holds the offset of the previous record, so the records
+ * form a chain from the last segment back to the first. An append
+ * writes its segment and record after everything else in the file,
+ * and only then points the header at the new record. If the append
+ * fails part way, the header still points at the old record and the
+ * archive reads as it did before.
+ *
+ * Each segment either carries its own character/frequency header,
+ * reuses the header of an earlier segment, stores its characters as
+ * is, or stores a single repeated character as a run. Appending only
+ * reads the header, the last record and the header of the previous
+ * model, and writes one segment and one record, so the cost of an
+ * append depends on the new data, not on the archive size.
+ */
+
+import java.util.*;
+import java.io.*;
+
+public class HuffArchive {
+	//Identifies a file as an archive, stored in its first four bytes.
+	//Files written by Huff start with 0xACED, so the two can't be confused.
+	public static final int MAGIC = 0x48554641; //"HUFA"
+
+	//Segment kinds, stored in the first byte of each segment
+	public static final int SEGMENT_MODEL = 0; //segment has its own character/frequency header
+	public static final int SEGMENT_REUSE = 1; //segment uses the header of an earlier segment
+	public static final int SEGMENT_STORED = 2; //segment holds its characters as is
+	public static final int SEGMENT_RUN = 3;    //segment holds a single repeated character
+
+	//Length of the header: MAGIC followed by the record offset
+	private static final int HEADER_LENGTH = 12;
+
+	//Length of a record: four offsets
+	private static final int RECORD_LENGTH = 32;
+
+	//The previous model is reused when it costs at most this
+	//fraction more than a new model with its header
+	private static final double REUSE_SLACK = 0.01;
+
+	/**
+	 * Private inner class to model the record written after
+	 * each segment.
+	 */
+	private static class Record {
+		private long prevOffset;      //offset of the previous record, 0 for the first segment
+		private long segmentOffset;
+		private long modelOffset;     //segment whose header holds the model, -1 if not Huffman coded
+		private long lastModelOffset; //model offset of the last Huffman coded segment so far, -1 if none
+	}
+
+	/**
+	 * Returns true if the named file starts with an archive header
+	 */
+	public static boolean isArchive(String filename) throws IOException
+	{
+		File file = new File(filename);
+		if (!file.isFile() || file.length() < HEADER_LENGTH) {
+			return false;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.readInt() == MAGIC;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read the offset of the last record from the header of an
+	 * archive, 0 if the archive has no segments. An empty file
+	 * is an archive with no segments.
+	 */
+	private static long readLastRecordOffset(RandomAccessFile raf) throws IOException
+	{
+		long length = raf.length();
+		if (length == 0) {
+			return 0;
+		}
+		raf.seek(0);
+		if (length < HEADER_LENGTH || raf.readInt() != MAGIC) {
+			throw new IOException("File is not a Huffman archive");
+		}
+		return raf.readLong();
+	}
+
+	/**
+	 * Read the record at recordOffset
+	 */
+	private static Record readRecord(RandomAccessFile raf, long recordOffset) throws IOException
+	{
+		if (recordOffset < HEADER_LENGTH || recordOffset > raf.length() - RECORD_LENGTH) {
+			throw new IOException("Huffman archive index is damaged");
+		}
+		//Read the whole record at once rather than one long at a time
+		byte[] raw = new byte[RECORD_LENGTH];
+		raf.seek(recordOffset);
+		raf.readFully(raw);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+		Record record = new Record();
+		record.prevOffset = in.readLong();
+		record.segmentOffset = in.readLong();
+		record.modelOffset = in.readLong();
+		record.lastModelOffset = in.readLong();
+		if (record.prevOffset >= recordOffset || record.segmentOffset >= recordOffset) {
+			throw new IOException("Huffman archive index is damaged");
+		}
+		return record;
+	}
+
+	/**
+	 * Read the records of an archive, first segment first,
+	 * by following the chain back from the header
+	 */
+	private static List<Record> readRecords(RandomAccessFile raf) throws IOException
+	{
+		List<Record> records = new ArrayList<Record>();
+		long recordOffset = readLastRecordOffset(raf);
+		while (recordOffset != 0){ //each record points further back, so the walk ends
+			Record record = readRecord(raf, recordOffset);
+			records.add(record);
+			recordOffset = record.prevOffset;
+		}
+		Collections.reverse(records);
+		return records;
+	}
+
+	/**
+	 * Read the character/frequency header of the segment
+	 * at modelOffset
+	 */
+	private static int[] readModel(RandomAccessFile raf, long modelOffset) throws IOException
+	{
+		raf.seek(modelOffset);
+		if (raf.readByte() != SEGMENT_MODEL) {
+			throw new IOException("Segment at " + modelOffset + " has no model");
+		}
+		int headLength = raf.readInt();
+		byte[] raw = new byte[8*headLength];
+		raf.readFully(raw);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+		int[] freqList = new int[256]; //Assume 8-bit character encoding
+		for (int i = 0; i < headLength; i++){
+			freqList[in.readInt()]=in.readInt();
+		}
+		return freqList;
+	}
+
+	/**
+	 * Returns the number of bytes append writes before the data
+	 * of a segment of the given kind, for a segment with listLen
+	 * distinct characters. Every kind ends its header with the
+	 * character count and the data length.
+	 */
+	private static long segmentHeaderBytes(int kind, int listLen)
+	{
+		long bytes = 1 + 4 + 8; //kind, character count and data length
+		if (kind == SEGMENT_MODEL) {
+			bytes += 4 + 8L*listLen; //header length and character/frequency pairs
+		} else if (kind == SEGMENT_REUSE) {
+			bytes += 8;              //model offset
+		} else if (kind == SEGMENT_RUN) {
+			bytes += 4;              //character
+		}
+		return bytes;
+	}
+
+	/**
+	 * Append the contents of a file to an archive as a new segment.
+	 * The archive is created if it does not exist.
+	 */
+	public static void append(String archiveName, String inputName) throws IOException
+	{
+		//Build character frequency list for the new data only
+		FileReader in = new FileReader(inputName, Huff.CHARSET);
+		int[] freqList;
+		try {
+			freqList = Huff.buildFreqList(in);
+		} finally {
+			in.close();
+		}
+
+		//buildFreqList refuses more than Huff.MAX_INPUT_CHARS characters,
+		//so the count fits in an int. The data length may not, it is a long.
+		int listLen = 0;
+		long symbolCount = 0;
+		for (int i: freqList){
+			if (i>0) listLen++;
+			symbolCount += i;
+		}
+		if (symbolCount == 0) {
+			System.out.println("Nothing to append from " + inputName);
+			return;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(archiveName, "rw");
+		long prevRecordOffset;
+		long segmentOffset;
+		long prevModelOffset = -1;
+		int[] prevFreqList = null;
+		try {
+			prevRecordOffset = readLastRecordOffset(raf);
+			if (raf.length() == 0) {
+				//New archive: header with no record yet
+				raf.writeInt(MAGIC);
+				raf.writeLong(0);
+			}
+			//The new segment goes after everything already in the file
+			segmentOffset = raf.length();
+			if (prevRecordOffset != 0) {
+				prevModelOffset = readRecord(raf, prevRecordOffset).lastModelOffset;
+			}
+			if (prevModelOffset >= 0) {
+				prevFreqList = readModel(raf, prevModelOffset);
+			}
+		} finally {
+			raf.close();
+		}
+
+		//Cost of a new model: the encoded bits plus its header
+		HuffArrayTree htree = null;
+		long huffmanBytes = -1;
+		if (listLen > 1) {
+			htree = new HuffArrayTree();
+			htree.build(freqList);
+			huffmanBytes = segmentHeaderBytes(SEGMENT_MODEL, listLen) + (htree.encodedBits(freqList) + 7)/8;
+		}
+		long modelOffset = segmentOffset;
+
+		//Cost of reusing the model of an earlier segment
+		if (prevFreqList != null && listLen > 1) {
+			HuffArrayTree prevTree = new HuffArrayTree();
+			prevTree.build(prevFreqList);
+			long prevBits = prevTree.encodedBits(freqList);
+			long reuseBytes = segmentHeaderBytes(SEGMENT_REUSE, listLen) + (prevBits + 7)/8;
+			if (prevBits >= 0 && reuseBytes <= huffmanBytes*(1 + REUSE_SLACK)) {
+				htree = prevTree;
+				huffmanBytes = reuseBytes;
+				modelOffset = prevModelOffset;
+			}
+		}
+
+		//Pick the cheapest way to store the segment before encoding anything
+		long storedBytes = segmentHeaderBytes(SEGMENT_STORED, listLen) + symbolCount;
+		long runBytes = -1;
+		if (listLen == 1) {
+			runBytes = segmentHeaderBytes(SEGMENT_RUN, listLen);
+		}
+		int mode = Huff.chooseMode(huffmanBytes, storedBytes, runBytes);
+		if (mode != Huff.MODE_HUFFMAN) {
+			modelOffset = -1;
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(archiveName, true)));
+
+		int kind;
+		long dataLength;
+		try {
+			//Write the segment header and data
+			if (mode == Huff.MODE_RUN) {
+				kind = SEGMENT_RUN;
+				dataLength = 0;
+				out.writeByte(kind);
+				for (int i = 0; i < freqList.length; i++){
+					if (freqList[i]>0) {
+						out.writeInt(i);
+					}
+				}
+				out.writeInt((int)symbolCount);
+				out.writeLong(dataLength);
+			}
+			else if (mode == Huff.MODE_STORED) {
+				kind = SEGMENT_STORED;
+				dataLength = symbolCount;
+				out.writeByte(kind);
+				out.writeInt((int)symbolCount);
+				out.writeLong(dataLength);
+				in = new FileReader(inputName, Huff.CHARSET);
+				try {
+					Huff.writeStored(in, out);
+				} finally {
+					in.close();
+				}
+			}
+			else {
+				if (modelOffset == segmentOffset) {
+					kind = SEGMENT_MODEL;
+					out.writeByte(kind);
+					out.writeInt(listLen);
+					for (int i = 0; i < freqList.length; i++){
+						if (freqList[i]>0) {
+							out.writeInt(i);
+							out.writeInt(freqList[i]);
+						}
+					}
+				} else {
+					kind = SEGMENT_REUSE;
+					out.writeByte(kind);
+					out.writeLong(modelOffset);
+				}
+				dataLength = (htree.encodedBits(freqList) + 7)/8;
+				out.writeInt((int)symbolCount);
+				out.writeLong(dataLength);
+
+				BitWriter writer = new BitWriter(out);
+				in = new FileReader(inputName, Huff.CHARSET);
+				try {
+					Huff.writeEncoded(in, writer, htree);
+				} finally {
+					in.close();
+				}
+				writer.flushBits();
+			}
+
+			//Write the record after the segment
+			out.writeLong(prevRecordOffset);
+			out.writeLong(segmentOffset);
+			out.writeLong(modelOffset);
+			out.writeLong(modelOffset >= 0 ? modelOffset : prevModelOffset);
+		} finally {
+			out.close();
+		}
+
+		//Only now point the header at the new record. Its offset is worked
+		//out rather than taken from out.size(), an int that stops at 2 GiB.
+		long recordOffset = segmentOffset + segmentHeaderBytes(kind, listLen) + dataLength;
+		raf = new RandomAccessFile(archiveName, "rw");
+		try {
+			raf.getFD().sync(); //segment and record must reach the disk first
+			raf.seek(4);
+			raf.writeLong(recordOffset);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Decode every segment of an archive, in order, to out.
+	 * Segments are read front to back through one buffered stream,
+	 * and the tree and buffers are reused for every segment.
+	 */
+	public static void extract(String archiveName, Writer out) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(archiveName, "r");
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(archiveName)));
+		try {
+			List<Record> records = readRecords(raf);
+			long pos = 0;			//position of in within the file
+			long treeOffset = -1;	//model offset of the current tree
+			HuffArrayTree htree = new HuffArrayTree(); //rebuilt in place for each model
+			BitReader reader = new BitReader(in);
+			int[] freqList = new int[HuffArrayTree.MAX_CHARS];
+			char[] chars = new char[8192];
+			for (Record record: records){
+				//Skip the header, the records and anything left by a failed append
+				in.skipNBytes(record.segmentOffset - pos);
+				pos = record.segmentOffset;
+
+				int kind = in.readByte();
+				int runChar = 0;
+				int listLen = 0;
+				if (kind == SEGMENT_MODEL) {
+					listLen = in.readInt();
+					Arrays.fill(freqList, 0);
+					for (int j = 0; j < listLen; j++){
+						freqList[in.readInt()]=in.readInt();
+					}
+					htree.build(freqList);
+					treeOffset = pos;
+				} else if (kind == SEGMENT_REUSE) {
+					long modelOffset = in.readLong();
+					if (modelOffset != treeOffset) { //not the model read last
+						htree.build(readModel(raf, modelOffset));
+						treeOffset = modelOffset;
+					}
+				} else if (kind == SEGMENT_RUN) {
+					runChar = in.readInt();
+				}
+				int symbolCount = in.readInt();
+				long dataLength = in.readLong();
+				pos += segmentHeaderBytes(kind, listLen);
+
+				if (kind == SEGMENT_RUN) {
+					Puff.writeRun(out, (char)runChar, symbolCount);
+				}
+				else if (kind == SEGMENT_STORED) {
+					Puff.writeStored(in, out, symbolCount);
+				}
+				else {
+					//Decoding reads exactly dataLength bytes, the last one
+					//may end in padding bits that must not reach the next segment
+					Puff.writeDecoded(htree, reader, out, symbolCount, chars);
+					reader.skipRemainingBits();
+				}
+				pos += dataLength;
+			}
+		} finally {
+			in.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the kind of each segment of an archive, in order.
+	 * Used by RoundTripTest to check which kind append chose.
+	 */
+	static int[] segmentKinds(String archiveName) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(archiveName, "r");
+		try {
+			List<Record> records = readRecords(raf);
+			int[] kinds = new int[records.size()];
+			for (int i = 0; i < kinds.length; i++){
+				raf.seek(records.get(i).segmentOffset);
+				kinds[i] = raf.readByte();
+			}
+			return kinds;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * main method for appending.  Takes command line arguments.
+	 * To use, type: java HuffArchive archive-file-name input-file-name
+	 * at the command-line prompt. Use Puff to decompress the archive.
+	 */
+	public static void main(String[] args) throws IOException {
+		Scanner console = new Scanner(System.in);
+
+		// Get the file names from the command line (if any) or from the console.
+		String archivename, infilename;
+		if (args.length >= 2) {
+			archivename = args[0];
+			infilename = args[1];
+		} else {
+			System.out.print("Enter the name of the archive file: ");
+			archivename = console.nextLine();
+			System.out.print("Enter the name of the file to append: ");
+			infilename = console.nextLine();
+		}
+
+		if (!new File(infilename).isFile()) {
+			System.out.println("Can't open file " + infilename);
+			System.exit(1);
+		}
+		File archive = new File(archivename);
+		if (archive.length() > 0 && !isArchive(archivename)) {
+			System.out.println(archivename + " is not a Huffman archive");
+			System.exit(1);
+		}
+
+		try {
+			append(archivename, infilename);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
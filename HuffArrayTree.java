@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Class to represent a binary Huffman encoding tree as
+ * parallel arrays of primitives.
+ *
+ * Builds the same tree as HuffEncodeTree, but a node is an
+ * index into arrays holding its frequency, children and
+ * character instead of an object. The arrays are allocated
+ * once, so a tree can be built, used for encoding or decoding,
+ * and built again for the next file without allocating.
+ */
+public class HuffArrayTree {
+	public static final int MAX_CHARS = 256; //Assume 8-bit character encoding
+	private static final int MAX_NODES = 2*MAX_CHARS - 1;
+	private static final short NONE = -1;
+
+	//Fields of the nodes, indexed by node number
+	private final int[] freq = new int[MAX_NODES];
+	private final short[] left = new short[MAX_NODES];
+	private final short[] right = new short[MAX_NODES];
+	private final short[] ch = new short[MAX_NODES];   //character of a leaf, NONE for other nodes
+	private final short[] next = new short[MAX_NODES]; //next node in list, unused after node added to tree
+	private final long[] nodeBits = new long[MAX_NODES]; //path from the root to the node
+	private final byte[] nodeLength = new byte[MAX_NODES];
+
+	//Code table, indexed by character
+	private final long[] codeBits = new long[MAX_CHARS];
+	private final byte[] codeLength = new byte[MAX_CHARS]; //-1 if character not in tree
+
+	//Stack of nodes used to walk the tree when building the code table
+	private final short[] stack = new short[MAX_NODES];
+
+	private int nodeCount;
+	private int root;       //root first serves as head of list, then as root of tree
+	private int listLength;
+
+	//Constructor creates an empty tree
+	public HuffArrayTree(){
+		reset();
+	}
+
+	/**
+	 * Empty the tree so it can be built again
+	 */
+	public void reset(){
+		nodeCount = 0;
+		root = NONE;
+		listLength = 0;
+		Arrays.fill(codeLength, (byte)-1);
+	}
+
+	/**
+	 * Build the Huffman tree and code table for a character
+	 * frequency list, replacing the current contents of the tree.
+	 */
+	public void build(int[] freqList){
+		reset();
+		for (int i = 0; i < freqList.length; i++){
+			if (freqList[i]>0) {//list only includes characters seen one or more times
+				addNode(freqList[i], (short)i, NONE, NONE);
+			}
+		}
+
+		//Merge the two smallest nodes until only the root is left
+		while (listLength > 1){
+			int s1 = root;
+			int s2 = next[s1];
+			root = next[s2];
+			listLength -= 2;
+			addNode(freq[s1]+freq[s2], NONE, (short)s1, (short)s2);
+		}
+
+		if (root != NONE) {
+			buildCodeTable();
+		}
+	}
+
+	/**
+	 * Create a node and add it to the list in sorted order,
+	 * before any node of equal frequency as in HuffEncodeTree.
+	 */
+	private void addNode(int nodeFreq, short nodeCh, short nodeLeft, short nodeRight){
+		int n = nodeCount++;
+		freq[n] = nodeFreq;
+		ch[n] = nodeCh;
+		left[n] = nodeLeft;
+		right[n] = nodeRight;
+		listLength++;
+
+		int trav = root;
+		int prev = NONE;
+		while (trav != NONE && freq[trav] < nodeFreq){
+			prev = trav;
+			trav = next[trav];
+		}
+		next[n] = (short)trav;
+		if (prev == NONE){
+			root = n;
+		}
+		else {
+			next[prev] = (short)n;
+		}
+	}
+
+	/**
+	 * Build the code table with a pre-order traversal,
+	 * using the stack array instead of recursion.
+	 */
+	private void buildCodeTable(){
+		if (ch[root] != NONE){ //lone character still needs one bit per occurrence
+			codeBits[ch[root]] = 0;
+			codeLength[ch[root]] = 1;
+			return;
+		}
+		int top = 0;
+		stack[top++] = (short)root;
+		nodeBits[root] = 0;
+		nodeLength[root] = 0;
+		while (top > 0){
+			int n = stack[--top];
+			if (ch[n] != NONE){
+				codeBits[ch[n]] = nodeBits[n];
+				codeLength[ch[n]] = nodeLength[n];
+				continue;
+			}
+			nodeBits[left[n]] = nodeBits[n] << 1;
+			nodeLength[left[n]] = (byte)(nodeLength[n] + 1);
+			nodeBits[right[n]] = (nodeBits[n] << 1) | 1;
+			nodeLength[right[n]] = (byte)(nodeLength[n] + 1);
+			stack[top++] = right[n];
+			stack[top++] = left[n];
+		}
+	}
+
+	/**
+	 * Returns the length of the code for a character,
+	 * or -1 if the character is not in the tree
+	 */
+	public int codeLength(int c){
+		return codeLength[c];
+	}
+
+	/**
+	 * Returns the number of bits needed to encode a file with the
+	 * given character frequencies, or -1 if a character in the
+	 * file is not in the tree.
+	 */
+	public long encodedBits(int[] freqList){
+		long bits = 0;
+		for (int i = 0; i < freqList.length; i++){
+			if (freqList[i]>0) {
+				if (codeLength[i] < 0) {
+					return -1; //character can't be encoded with this tree
+				}
+				bits += (long)freqList[i]*codeLength[i];
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * Write the code for a character using a BitWriter
+	 */
+	public void writeCode(BitWriter writer, int c) throws IOException {
+		long bits = codeBits[c];
+		for (int i = codeLength[c] - 1; i >= 0; i--){
+			writer.putBit((int)(bits >>> i) & 1);
+		}
+	}
+
+	/**
+	 * Decode len characters read from a BitReader into dest,
+	 * starting at dest[off].
+	 */
+	public void decode(BitReader reader, char[] dest, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++){
+			int trav = root;
+			do { //walk down until a leaf is found, a lone character uses one bit
+				int bit = reader.getBit();
+				if (bit == -1){
+					throw new IllegalArgumentException("Bit sequence ended early");
+				}
+				if (ch[trav] == NONE){
+					trav = (bit == 0) ? left[trav] : right[trav];
+				}
+			} while (ch[trav] == NONE);
+			dest[i] = (char)ch[trav];
+		}
+	}
+}
@@ -7,6 +7,10 @@ import java.util.ArrayList;
  * of a character, an integer frequency count for the character,
  * and references to the left and right children
  * 
+ * Huff and Puff use HuffArrayTree, which builds the same tree in
+ * flat arrays. This class is kept as the reference implementation
+ * that HuffArrayTree is checked against.
+ * 
  * Author: Jon Janelle
  * jonjanelle1@gmail.com
  * 11/23/2016
@@ -158,7 +162,7 @@ public class HuffEncodeTree {
 	 */
 	public void constructHuffTree()
 	{
-		while (listLength != 1){
+		while (listLength > 1){ //an empty list has nothing to merge
 			mergeSmallest();
 		}
 	}
@@ -172,7 +176,7 @@ public class HuffEncodeTree {
 	 * a String of the form <char>,<huffcode>
 	 */
 	public String[] buildCodeTable(){
-		String[] result = new String[255];
+		String[] result = new String[256];
 		buildCodeTable(root,new String(), result);
 		return result;
 	}
@@ -15,6 +15,50 @@ public class Puff {
 
     /* Put any methods that you add here. */
 
+    /**
+     * Write count copies of a character to out
+     */
+    public static void writeRun(Writer out, char ch, int count) throws IOException {
+        char[] chars = new char[Math.min(count, 8192)];
+        Arrays.fill(chars, ch);
+        while (count > 0) {
+            int n = Math.min(count, chars.length);
+            out.write(chars, 0, n);
+            count -= n;
+        }
+    }
+
+    /**
+     * Decode count characters with a HuffArrayTree and write them
+     * to out, using chars as a buffer
+     */
+    public static void writeDecoded(HuffArrayTree tree, BitReader reader, Writer out,
+                                    int count, char[] chars) throws IOException {
+        while (count > 0) {
+            int n = Math.min(count, chars.length);
+            tree.decode(reader, chars, 0, n);
+            out.write(chars, 0, n);
+            count -= n;
+        }
+    }
+
+    /**
+     * Copy count characters stored one per byte from in to out
+     */
+    public static void writeStored(DataInput in, Writer out, int count) throws IOException {
+        byte[] bytes = new byte[Math.min(count, 8192)];
+        char[] chars = new char[bytes.length];
+        while (count > 0) {
+            int n = Math.min(count, bytes.length);
+            in.readFully(bytes, 0, n);
+            for (int i = 0; i < n; i++) {
+                chars[i] = (char)(bytes[i] & 0xff);
+            }
+            out.write(chars, 0, n);
+            count -= n;
+        }
+    }
+
 
     /** 
      * main method for decompression.  Takes command line arguments. 
@@ -38,6 +82,14 @@ public class Puff {
             outfilename = console.nextLine();
         }
 
+        // Archives built by HuffArchive have their own format.
+        if (HuffArchive.isArchive(infilename)) {
+            out = new FileWriter(outfilename, Huff.CHARSET);
+            HuffArchive.extract(infilename, out);
+            out.close();
+            return;
+        }
+
         // Open the input file.
         try {
             in = new ObjectInputStream(new FileInputStream(infilename));
@@ -48,7 +100,7 @@ public class Puff {
 
         // Open the output file.
         try {
-            out = new FileWriter(outfilename);
+            out = new FileWriter(outfilename, Huff.CHARSET);
         } catch (FileNotFoundException e) {
             System.out.println("Can't open file " + outfilename);
             System.exit(1);
@@ -61,34 +113,38 @@ public class Puff {
         /****** Add your code here. ******/
         //First build character/frequency table
         int headLength = in.readInt();
-        int[] freqList = new int[255]; //Assume 8-bit character encoding
+        if (headLength == Huff.MODE_RUN) {
+            char ch = (char)in.readInt();
+            writeRun(out, ch, in.readInt());
+            in.close();
+            out.close();
+            return;
+        }
+        if (headLength == Huff.MODE_STORED) {
+            writeStored(in, out, in.readInt());
+            in.close();
+            out.close();
+            return;
+        }
+
+        int[] freqList = new int[256]; //Assume 8-bit character encoding
         for (int i = 0; i < headLength; i++){
         	freqList[in.readInt()]=in.readInt();
         }
         
         //Build Huffman tree for use in decoding
-        HuffEncodeTree htree = new HuffEncodeTree();
-        for (int i = 0; i < freqList.length; i++){
-			if (freqList[i]>0) {//list only includes characters seen one or more times
-				htree.addItem(freqList[i],(char)i);//Add node to list
-			}
-		}
-		htree.constructHuffTree();
-        
-		//Start reading bits, write char when end reached
-		ArrayList<Integer> bits = new ArrayList<Integer>();
-		int bit = 0;
-		do {
-			bit = reader.getBit();
-			if (bit != -1){
-				bits.add(bit);
-			}
-		} while (bit!=-1);
-		
-		
-		out.write(htree.decodeBitSequence(bits));
-		
-		
+        HuffArrayTree htree = new HuffArrayTree();
+        htree.build(freqList);
+
+        //Decode one character per frequency counted, so the
+        //padding bits after the last code are never decoded
+        int symbolCount = 0;
+        for (int freq: freqList) {
+            symbolCount += freq;
+        }
+        writeDecoded(htree, reader, out, symbolCount, new char[8192]);
+
+
         /* Leave these lines at the end of the method. */
         in.close();
         out.close();
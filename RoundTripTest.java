@@ -0,0 +1,420 @@
+/*
+ * RoundTripTest.java
+ *
+ * Checks that Puff(Huff(x)) == x, and that an archive built by
+ * HuffArchive extracts to the concatenation of the appended files.
+ * Inputs are random, skewed, empty, one-character, all-byte and large
+ * files, and files ending in arbitrary bytes. Every mode is covered:
+ * Huffman, stored and run for Huff, and model, reuse, stored and run
+ * segments for HuffArchive. HuffArrayTree is checked against the
+ * reference HuffEncodeTree. Encoding and decoding a fixed large input
+ * must also run above a minimum speed.
+ *
+ * To use, type: javac *.java && java RoundTripTest
+ * at the command-line prompt. Exits with status 1 if any check fails.
+ */
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+public class RoundTripTest {
+	//Minimum throughput in MB/s of the input size, well below what
+	//a normal machine reaches so that only real slowdowns fail
+	private static final double MIN_HUFFMAN_ENCODE_MBPS = 8;
+	private static final double MIN_HUFFMAN_DECODE_MBPS = 4;
+	private static final double MIN_STORED_MBPS = 20;
+	private static final double MIN_RUN_MBPS = 20;
+	private static final double MIN_ARCHIVE_APPEND_MBPS = 8;
+	private static final double MIN_ARCHIVE_EXTRACT_MBPS = 4;
+
+	//Size of the fixed input used for the throughput checks
+	private static final int LARGE_INPUT_SIZE = 16*1024*1024;
+
+	//The archive throughput checks append the same amount in parts of this size
+	private static final int ARCHIVE_PART_SIZE = 1024*1024;
+
+	private static Random random = new Random(2016);
+	private static Path dir;
+	private static int checks = 0;
+	private static int failures = 0;
+
+	/**
+	 * Record a failure if condition is false
+	 */
+	private static void check(boolean condition, String message)
+	{
+		checks++;
+		if (!condition) {
+			failures++;
+			System.out.println("FAIL: " + message);
+		}
+	}
+
+	/**
+	 * Random bytes drawn from the first distinct values of the byte
+	 * range, with the first value making up share of the input
+	 */
+	private static byte[] skewed(int length, int distinct, double share)
+	{
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++){
+			if (random.nextDouble() < share) {
+				data[i] = (byte)'e';
+			} else {
+				data[i] = (byte)('e' + 1 + random.nextInt(distinct - 1));
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Random bytes with every value equally likely
+	 */
+	private static byte[] uniform(int length)
+	{
+		byte[] data = new byte[length];
+		random.nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * A single byte value repeated length times
+	 */
+	private static byte[] repeated(int length, int value)
+	{
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte)value);
+		return data;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b)
+	{
+		byte[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+
+	/**
+	 * Compress data with Huff and decompress it with Puff. Checks that
+	 * the data comes back unchanged and, unless expectedMode is null,
+	 * that Huff chose the expected mode.
+	 */
+	private static void huffRoundTrip(String name, byte[] data, Integer expectedMode) throws IOException
+	{
+		Path original = dir.resolve(name);
+		Path compressed = dir.resolve(name + ".huff");
+		Path restored = dir.resolve(name + ".puff");
+		Files.write(original, data);
+		try {
+			Huff.main(new String[] {original.toString(), compressed.toString()});
+			Puff.main(new String[] {compressed.toString(), restored.toString()});
+			check(Arrays.equals(data, Files.readAllBytes(restored)), name + ": Puff(Huff(x)) != x");
+			if (expectedMode != null) {
+				ObjectInputStream in = new ObjectInputStream(new FileInputStream(compressed.toFile()));
+				int mode = Math.min(in.readInt(), Huff.MODE_HUFFMAN); //header length for Huffman
+				in.close();
+				check(mode == expectedMode, name + ": mode " + mode + ", expected " + expectedMode);
+			}
+		} catch (RuntimeException | IOException e) {
+			check(false, name + ": " + e);
+		}
+	}
+
+	/**
+	 * Huff and Puff on files of every shape
+	 */
+	private static void testHuff() throws IOException
+	{
+		huffRoundTrip("empty", new byte[0], Huff.MODE_STORED);
+		huffRoundTrip("one-byte", new byte[] {'x'}, Huff.MODE_STORED);
+		huffRoundTrip("one-symbol", repeated(5000, 'z'), Huff.MODE_RUN);
+		huffRoundTrip("one-symbol-255", repeated(5000, 255), Huff.MODE_RUN);
+		huffRoundTrip("uniform", uniform(100000), Huff.MODE_STORED);
+		huffRoundTrip("skewed", skewed(100000, 20, 0.7), Huff.MODE_HUFFMAN);
+		huffRoundTrip("two-symbol", skewed(9999, 2, 0.5), Huff.MODE_HUFFMAN);
+
+		byte[] allBytes = new byte[256*40];
+		for (int i = 0; i < allBytes.length; i++){
+			allBytes[i] = (byte)(i < 256*39 ? i % 13 : i);
+		}
+		huffRoundTrip("all-bytes", allBytes, Huff.MODE_HUFFMAN);
+
+		//Files ending in bytes that mean something to Puff
+		huffRoundTrip("ends-magic", "HUFA".getBytes(Huff.CHARSET), null);
+		huffRoundTrip("ends-magic-long", "xxxxxxxxHUFA".getBytes(Huff.CHARSET), null);
+		huffRoundTrip("ends-magic-skewed", concat(skewed(5000, 4, 0.6), "HUFA".getBytes(Huff.CHARSET)), null);
+		huffRoundTrip("ends-stream-header", concat(uniform(300), new byte[] {(byte)0xAC, (byte)0xED, 0, 5}), null);
+
+		//Random shapes and lengths, so the coded bits end anywhere in a byte
+		for (int i = 0; i < 200; i++){
+			int length = random.nextInt(4000);
+			byte[] data;
+			switch (random.nextInt(4)) {
+				case 0:  data = uniform(length); break;
+				case 1:  data = repeated(length, random.nextInt(256)); break;
+				default: data = skewed(length, 2 + random.nextInt(100), random.nextDouble());
+			}
+			if (length > 0) {
+				data[length - 1] = (byte)random.nextInt(256);
+			}
+			huffRoundTrip("random-" + i, data, null);
+		}
+	}
+
+	/**
+	 * HuffArchive appends of every segment kind, extracted with Puff
+	 */
+	private static void testArchive() throws IOException
+	{
+		Path archive = dir.resolve("archive");
+		Path input = dir.resolve("archive-input");
+		Path restored = dir.resolve("archive.puff");
+		byte[][] parts = {
+			skewed(50000, 30, 0.5),  //model
+			skewed(50000, 30, 0.5),  //reuse of the first model
+			uniform(20000),          //stored
+			repeated(3000, 'q'),     //run
+			skewed(40000, 30, 0.5),  //reuse across stored and run segments
+			skewed(50000, 200, 0.1), //new model
+			new byte[0],             //nothing appended
+			"log line ending in HUFA".getBytes(Huff.CHARSET),
+		};
+		int[] expectedKinds = {
+			HuffArchive.SEGMENT_MODEL, HuffArchive.SEGMENT_REUSE, HuffArchive.SEGMENT_STORED,
+			HuffArchive.SEGMENT_RUN, HuffArchive.SEGMENT_REUSE, HuffArchive.SEGMENT_MODEL,
+			HuffArchive.SEGMENT_STORED,
+		};
+
+		byte[] expected = new byte[0];
+		try {
+			for (byte[] part: parts){
+				Files.write(input, part);
+				HuffArchive.append(archive.toString(), input.toString());
+				expected = concat(expected, part);
+
+				//The archive must extract correctly after every append
+				Puff.main(new String[] {archive.toString(), restored.toString()});
+				check(Arrays.equals(expected, Files.readAllBytes(restored)),
+						"archive: wrong contents after " + HuffArchive.segmentKinds(archive.toString()).length + " segments");
+			}
+			check(Arrays.equals(expectedKinds, HuffArchive.segmentKinds(archive.toString())),
+					"archive: segment kinds " + Arrays.toString(HuffArchive.segmentKinds(archive.toString()))
+					+ ", expected " + Arrays.toString(expectedKinds));
+
+			//An append that stops part way leaves the archive as it was
+			Files.write(archive, skewed(777, 10, 0.5), StandardOpenOption.APPEND);
+			Puff.main(new String[] {archive.toString(), restored.toString()});
+			check(Arrays.equals(expected, Files.readAllBytes(restored)), "archive: unreadable after partial append");
+
+			//Each append writes one segment and one fixed size record, so the
+			//archive grows by the same small amount whatever its segment count
+			Path small = dir.resolve("small-archive");
+			byte[] line = "one small log line\n".getBytes(Huff.CHARSET);
+			Files.write(input, line);
+			HuffArchive.append(small.toString(), input.toString());
+			long firstSize = Files.size(small);
+			HuffArchive.append(small.toString(), input.toString());
+			long step = Files.size(small) - firstSize;
+			for (int i = 2; i < 200; i++){
+				HuffArchive.append(small.toString(), input.toString());
+			}
+			check(Files.size(small) == firstSize + 199*step && step <= 2*line.length + 32,
+					"archive: " + Files.size(small) + " bytes after 200 appends of " + line.length + " bytes");
+			Puff.main(new String[] {small.toString(), restored.toString()});
+			byte[] lines = new byte[0];
+			for (int i = 0; i < 200; i++){
+				lines = concat(lines, line);
+			}
+			check(Arrays.equals(lines, Files.readAllBytes(restored)), "archive: wrong contents after 200 appends");
+		} catch (RuntimeException | IOException e) {
+			check(false, "archive: " + e);
+		}
+	}
+
+	/**
+	 * HuffArrayTree must give the same codes as HuffEncodeTree
+	 */
+	private static void testTreesMatch() throws IOException
+	{
+		HuffArrayTree arrayTree = new HuffArrayTree(); //reused, as Huff and Puff do
+		for (int n = 0; n < 500; n++){
+			int[] freqList = new int[HuffArrayTree.MAX_CHARS];
+			int distinct = 2 + random.nextInt(255);
+			for (int i = 0; i < distinct; i++){
+				freqList[random.nextInt(freqList.length)] = 1 + (random.nextBoolean() ? random.nextInt(4) : random.nextInt(100000));
+			}
+			int listLen = 0;
+			for (int f: freqList){
+				if (f>0) listLen++;
+			}
+			if (listLen < 2) {
+				continue; //HuffEncodeTree gives a lone character no code
+			}
+
+			HuffEncodeTree reference = new HuffEncodeTree();
+			for (int i = 0; i < freqList.length; i++){
+				if (freqList[i]>0) {
+					reference.addItem(freqList[i],(char)i);
+				}
+			}
+			reference.constructHuffTree();
+			String[] expected = reference.buildCodeTable();
+			arrayTree.build(freqList);
+
+			for (int c = 0; c < freqList.length; c++){
+				String code = null;
+				if (arrayTree.codeLength(c) >= 0) {
+					//Read the code back bit by bit
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					BitWriter writer = new BitWriter(bytes);
+					arrayTree.writeCode(writer, c);
+					writer.flushBits();
+					BitReader reader = new BitReader(new ByteArrayInputStream(bytes.toByteArray()));
+					code = "";
+					for (int b = 0; b < arrayTree.codeLength(c); b++){
+						code += reader.getBit();
+					}
+				}
+				if (!Objects.equals(expected[c], code)) {
+					check(false, "trees: character " + c + " has code " + code + ", expected " + expected[c]);
+					return;
+				}
+			}
+		}
+		check(true, "trees");
+	}
+
+	/**
+	 * Time compressing and decompressing a fixed input, in MB/s
+	 */
+	private static double[] throughput(String name, byte[] data) throws IOException
+	{
+		Path original = dir.resolve(name);
+		Path compressed = dir.resolve(name + ".huff");
+		Path restored = dir.resolve(name + ".puff");
+		Files.write(original, data);
+		double megabytes = data.length/(1024.0*1024.0);
+		double[] best = {0, 0};
+		try {
+			for (int run = 0; run < 3; run++){ //best of three, the first also warms up
+				long start = System.nanoTime();
+				Huff.main(new String[] {original.toString(), compressed.toString()});
+				long middle = System.nanoTime();
+				Puff.main(new String[] {compressed.toString(), restored.toString()});
+				long end = System.nanoTime();
+				best[0] = Math.max(best[0], megabytes/((middle - start)/1e9));
+				best[1] = Math.max(best[1], megabytes/((end - middle)/1e9));
+			}
+			check(Arrays.equals(data, Files.readAllBytes(restored)), name + ": Puff(Huff(x)) != x");
+		} catch (RuntimeException | IOException e) {
+			check(false, name + ": " + e);
+		}
+		System.out.printf("%s: encode %.1f MB/s, decode %.1f MB/s%n", name, best[0], best[1]);
+		return best;
+	}
+
+	/**
+	 * Fail if either mode runs slower than its floor
+	 */
+	private static void testThroughput() throws IOException
+	{
+		random = new Random(1); //same input every run
+		double[] huffman = throughput("large-skewed", skewed(LARGE_INPUT_SIZE, 40, 0.4));
+		check(huffman[0] >= MIN_HUFFMAN_ENCODE_MBPS, "large-skewed: encoding below " + MIN_HUFFMAN_ENCODE_MBPS + " MB/s");
+		check(huffman[1] >= MIN_HUFFMAN_DECODE_MBPS, "large-skewed: decoding below " + MIN_HUFFMAN_DECODE_MBPS + " MB/s");
+
+		double[] stored = throughput("large-uniform", uniform(LARGE_INPUT_SIZE));
+		check(stored[0] >= MIN_STORED_MBPS, "large-uniform: storing below " + MIN_STORED_MBPS + " MB/s");
+		check(stored[1] >= MIN_STORED_MBPS, "large-uniform: restoring below " + MIN_STORED_MBPS + " MB/s");
+
+		double[] run = throughput("large-run", repeated(LARGE_INPUT_SIZE, 'r'));
+		check(run[0] >= MIN_RUN_MBPS, "large-run: encoding below " + MIN_RUN_MBPS + " MB/s");
+		check(run[1] >= MIN_RUN_MBPS, "large-run: decoding below " + MIN_RUN_MBPS + " MB/s");
+
+		//Mostly parts with one distribution, so most segments reuse the
+		//first model, with stored and run segments in between
+		byte[][] parts = new byte[LARGE_INPUT_SIZE/ARCHIVE_PART_SIZE][];
+		for (int i = 0; i < parts.length; i++){
+			if (i % 8 == 3) {
+				parts[i] = uniform(ARCHIVE_PART_SIZE);
+			} else if (i % 8 == 6) {
+				parts[i] = repeated(ARCHIVE_PART_SIZE, 'r');
+			} else {
+				parts[i] = skewed(ARCHIVE_PART_SIZE, 40, 0.4);
+			}
+		}
+		double[] archive = archiveThroughput("large-archive", parts);
+		check(archive[0] >= MIN_ARCHIVE_APPEND_MBPS, "large-archive: appending below " + MIN_ARCHIVE_APPEND_MBPS + " MB/s");
+		check(archive[1] >= MIN_ARCHIVE_EXTRACT_MBPS, "large-archive: extracting below " + MIN_ARCHIVE_EXTRACT_MBPS + " MB/s");
+	}
+
+	/**
+	 * Append each part to a new archive with HuffArchive, then extract
+	 * it with Puff, three times. Returns the best append and extract
+	 * speeds in MB/s, after checking the data comes back unchanged and
+	 * every segment kind was used.
+	 */
+	private static double[] archiveThroughput(String name, byte[][] parts) throws IOException
+	{
+		Path archive = dir.resolve(name);
+		Path restored = dir.resolve(name + ".puff");
+		Path[] inputs = new Path[parts.length];
+		byte[] expected = new byte[0];
+		for (int i = 0; i < parts.length; i++){
+			inputs[i] = dir.resolve(name + "-part" + i);
+			Files.write(inputs[i], parts[i]);
+			expected = concat(expected, parts[i]);
+		}
+		double megabytes = expected.length/(1024.0*1024.0);
+		double[] best = {0, 0};
+		try {
+			for (int run = 0; run < 3; run++){ //best of three, the first also warms up
+				Files.deleteIfExists(archive);
+				long start = System.nanoTime();
+				for (Path input: inputs){
+					HuffArchive.append(archive.toString(), input.toString());
+				}
+				long middle = System.nanoTime();
+				Puff.main(new String[] {archive.toString(), restored.toString()});
+				long end = System.nanoTime();
+				best[0] = Math.max(best[0], megabytes/((middle - start)/1e9));
+				best[1] = Math.max(best[1], megabytes/((end - middle)/1e9));
+			}
+			check(Arrays.equals(expected, Files.readAllBytes(restored)), name + ": extracted data differs");
+			int[] kinds = HuffArchive.segmentKinds(archive.toString());
+			boolean[] seen = new boolean[HuffArchive.SEGMENT_RUN + 1];
+			for (int kind: kinds){
+				seen[kind] = true;
+			}
+			for (int kind = 0; kind < seen.length; kind++){
+				check(seen[kind], name + ": no segment of kind " + kind + " in " + Arrays.toString(kinds));
+			}
+		} catch (RuntimeException | IOException e) {
+			check(false, name + ": " + e);
+		}
+		System.out.printf("%s: append %.1f MB/s, extract %.1f MB/s%n", name, best[0], best[1]);
+		return best;
+	}
+
+	public static void main(String[] args) throws IOException {
+		dir = Files.createTempDirectory("roundtrip");
+		try {
+			testHuff();
+			testArchive();
+			testTreesMatch();
+			testThroughput();
+		} finally {
+			File[] files = dir.toFile().listFiles();
+			for (File file: files){
+				file.delete();
+			}
+			dir.toFile().delete();
+		}
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+}